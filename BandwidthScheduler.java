@@ -0,0 +1,228 @@
+/**
+ * BandwidthScheduler Class
+ *
+ * Shares the server's outgoing bandwidth between the objects being sent by worker threads. Each transfer can
+ * be capped on its own, and all transfers together can be capped globally. Under a global cap, transfers take
+ * turns writing one chunk each (round-robin), so a small object is never stuck behind a large one.
+ */
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class BandwidthScheduler {
+    public static final long UNLIMITED = 0;
+
+    private static final long NANOS_PER_SECOND = 1000000000L;
+    private static final long NANOS_PER_MILLI = 1000000L;
+    // the global cap allows bursts of up to 100ms worth of bytes after being idle
+    private static final long BURST_DIVISOR = 10;
+
+    private final long connectionBytesPerSecond;
+    private final long globalBytesPerSecond;
+    private final int maxChunkSize;
+    private final long globalCapacity;
+
+    // all of the following are guarded by the scheduler's monitor
+    private final Deque<Transfer> waiting = new ArrayDeque<Transfer>();
+    private double globalTokens;
+    private long globalRefilledAt;
+
+    // totals across every transfer since the server started
+    private final AtomicLong totalBytes = new AtomicLong();
+    private final AtomicLong totalThrottledNanos = new AtomicLong();
+
+    /**
+     * A single object being sent over a connection, along with its counters.
+     */
+    public class Transfer {
+        private final String name;
+        private long nextSendAt;
+        private long bytes;
+        private long throttledNanos;
+
+        // scheduling state, guarded by the scheduler's monitor
+        private int pending;
+        private boolean granted;
+
+        private Transfer(String name) {
+            this.name = name;
+            this.nextSendAt = System.nanoTime();
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getBytes() {
+            return bytes;
+        }
+
+        public long getThrottledNanos() {
+            return throttledNanos;
+        }
+    }
+
+    /**
+     * @param connectionBytesPerSecond // cap for a single transfer, or UNLIMITED
+     * @param globalBytesPerSecond // cap for all transfers together, or UNLIMITED
+     * @param maxChunkSize // largest number of bytes a transfer may write at once
+     * @throws IllegalArgumentException if a cap is negative
+     */
+    public BandwidthScheduler(long connectionBytesPerSecond, long globalBytesPerSecond, int maxChunkSize) {
+        /*
+         * A negative global cap would drain the token bucket instead of filling it, leaving every transfer waiting
+         * forever, and a negative connection cap would silently act as no cap at all.
+         */
+        if (connectionBytesPerSecond < 0 || globalBytesPerSecond < 0) {
+            throw new IllegalArgumentException("bandwidth caps must not be negative");
+        }
+
+        this.connectionBytesPerSecond = connectionBytesPerSecond;
+        this.globalBytesPerSecond = globalBytesPerSecond;
+        this.maxChunkSize = maxChunkSize;
+
+        /*
+         * A chunk is only granted once there are enough tokens for all of it, so the bucket has to be able to
+         * hold at least one full chunk; otherwise a low cap would never let a chunk through.
+         */
+        this.globalCapacity = Math.max(maxChunkSize, globalBytesPerSecond / BURST_DIVISOR);
+        this.globalTokens = globalCapacity;
+        this.globalRefilledAt = System.nanoTime();
+    }
+
+    /**
+     * Start a new transfer.
+     *
+     * @param name // how the transfer is identified in the console output
+     * @return The transfer, to be passed to acquire() before every write.
+     */
+    public Transfer register(String name) {
+        return new Transfer(name);
+    }
+
+    /**
+     * Block until the transfer is allowed to write the given number of bytes. Only the thread that
+     * registered the transfer may call this.
+     *
+     * @param transfer // the transfer about to write
+     * @param numBytes // the number of bytes it is about to write (at most maxChunkSize)
+     * @throws InterruptedException if the thread was interrupted while waiting
+     */
+    public void acquire(Transfer transfer, int numBytes) throws InterruptedException {
+        /*
+         * Taking turns is only fair if every turn is worth about the same number of bytes, and a chunk larger
+         * than the token bucket could never be granted at all.
+         */
+        if (numBytes > maxChunkSize) {
+            throw new IllegalArgumentException("chunk of " + numBytes + " bytes exceeds " + maxChunkSize);
+        }
+
+        long startedAt = System.nanoTime();
+        try {
+            if (connectionBytesPerSecond != UNLIMITED) {
+                paceConnection(transfer, numBytes);
+            }
+            if (globalBytesPerSecond != UNLIMITED) {
+                awaitTurn(transfer, numBytes);
+            }
+        }
+        finally {
+            long throttled = System.nanoTime() - startedAt;
+            transfer.throttledNanos += throttled;
+            totalThrottledNanos.addAndGet(throttled);
+        }
+        transfer.bytes += numBytes;
+        totalBytes.addAndGet(numBytes);
+    }
+
+    /*
+     * Only the transfer's own thread touches its pacing state, so no locking is needed here. Each write
+     * pushes back the time of the next one by however long the bytes take at the connection's rate.
+     */
+    private void paceConnection(Transfer transfer, int numBytes) throws InterruptedException {
+        long now = System.nanoTime();
+        if (transfer.nextSendAt > now) {
+            long sleepNanos = transfer.nextSendAt - now;
+            Thread.sleep(sleepNanos / NANOS_PER_MILLI, (int) (sleepNanos % NANOS_PER_MILLI));
+            now = transfer.nextSendAt;
+        }
+        transfer.nextSendAt = now + numBytes * NANOS_PER_SECOND / connectionBytesPerSecond;
+    }
+
+    // wait in the round-robin queue until the transfer's chunk is granted
+    private synchronized void awaitTurn(Transfer transfer, int numBytes) throws InterruptedException {
+        transfer.pending = numBytes;
+        transfer.granted = false;
+        waiting.addLast(transfer);
+
+        /*
+         * If we are interrupted (ie. the server is shutting down) we must leave the queue, otherwise the
+         * transfers behind us would wait forever for a chunk that will never be written.
+         */
+        try {
+            while (!transfer.granted) {
+                long waitNanos = schedule();
+                if (transfer.granted) {
+                    break;
+                }
+                // wake up when there are enough tokens, or earlier if another thread hands us our turn
+                wait(Math.max(1, waitNanos / NANOS_PER_MILLI));
+            }
+        }
+        finally {
+            if (!transfer.granted) {
+                waiting.remove(transfer);
+                notifyAll();
+            }
+        }
+    }
+
+    /*
+     * Round-robin: chunks are granted in the order transfers asked for them, as long as there are enough
+     * global tokens. A transfer waits for its next chunk at the back of the queue, so every other waiting
+     * transfer gets to write one chunk in between.
+     *
+     * Returns how long to wait before the head of the queue can be granted.
+     */
+    private long schedule() {
+        refillGlobalTokens();
+
+        boolean grantedAny = false;
+        while (!waiting.isEmpty()) {
+            Transfer head = waiting.peekFirst();
+            if (globalTokens < head.pending) {
+                break;
+            }
+
+            globalTokens -= head.pending;
+            head.granted = true;
+            waiting.removeFirst();
+            grantedAny = true;
+        }
+
+        if (grantedAny) {
+            notifyAll();
+        }
+        if (waiting.isEmpty()) {
+            return 0;
+        }
+        double missingTokens = waiting.peekFirst().pending - globalTokens;
+        return (long) (missingTokens * NANOS_PER_SECOND / globalBytesPerSecond);
+    }
+
+    private void refillGlobalTokens() {
+        long now = System.nanoTime();
+        globalTokens = Math.min(globalCapacity,
+                                globalTokens + (double) (now - globalRefilledAt) * globalBytesPerSecond / NANOS_PER_SECOND);
+        globalRefilledAt = now;
+    }
+
+    public long getTotalBytes() {
+        return totalBytes.get();
+    }
+
+    public long getTotalThrottledNanos() {
+        return totalThrottledNanos.get();
+    }
+}
@@ -0,0 +1,242 @@
+/**
+ * CachePolicy Class
+ *
+ * Decides the Cache-Control (and matching Expires) headers for an object, based on rules matching
+ * the object path prefix, file extension or MIME type. Rules are read from a file with one rule per line:
+ *
+ *     # kind   match        Cache-Control value
+ *     prefix   /files/      max-age=3600, public
+ *     ext      pdf          max-age=86400, immutable
+ *     type     text/html    no-cache
+ *
+ * The first rule in the file that matches an object wins. An object matching no rule gets no freshness headers.
+ */
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+public class CachePolicy {
+    // rule file constants
+    private static final String COMMENT = "#";
+    private static final String PREFIX_RULE = "prefix";
+    private static final String EXTENSION_RULE = "ext";
+    private static final String TYPE_RULE = "type";
+    private static final String MAX_AGE = "max-age=";
+    private static final String PATH_SEPARATOR = "/";
+    private static final String CURRENT_DIRECTORY = ".";
+    private static final String PARENT_DIRECTORY = "..";
+    private static final int NO_RULE = Integer.MAX_VALUE;
+
+    /*
+     * The rules are compiled so that matching an object doesn't mean walking through every rule. Extensions
+     * and types are exact matches, so they are looked up in a map (which remembers the first rule for each key).
+     * Prefixes can't be hashed, but they are kept in file order so the first one that matches is the one we want.
+     * In all cases we only remember the index of the rule, which is what decides between the three kinds.
+     */
+    private final List<Directive> directives = new ArrayList<Directive>();
+    private final List<String> prefixes = new ArrayList<String>();
+    private final List<Integer> prefixRules = new ArrayList<Integer>();
+    private final Map<String, Integer> extensionRules = new HashMap<String, Integer>();
+    private final Map<String, Integer> typeRules = new HashMap<String, Integer>();
+
+    /*
+     * Matched directives per normalized object path, so repeat requests for an object skip matching altogether.
+     * The key must be the same path the prefix rules were matched against; otherwise differently spelled requests
+     * for one file (eg. "//files/a.txt") would share an entry but not a match.
+     */
+    private final Map<String, CachedDirective> cache = new ConcurrentHashMap<String, CachedDirective>();
+
+    /**
+     * The Cache-Control value of a rule, along with the max-age it contains (if any) for the Expires header.
+     */
+    public static class Directive {
+        public static final long NO_MAX_AGE = -1;
+
+        private final String cacheControl;
+        private final long maxAgeSeconds;
+
+        private Directive(String cacheControl, long maxAgeSeconds) {
+            this.cacheControl = cacheControl;
+            this.maxAgeSeconds = maxAgeSeconds;
+        }
+
+        public String getCacheControl() {
+            return cacheControl;
+        }
+
+        public long getMaxAgeSeconds() {
+            return maxAgeSeconds;
+        }
+    }
+
+    // a directive (or lack of one) remembered for a file, valid as long as the file isn't modified
+    private static class CachedDirective {
+        private final long lastModified;
+        private final Directive directive;
+
+        private CachedDirective(long lastModified, Directive directive) {
+            this.lastModified = lastModified;
+            this.directive = directive;
+        }
+    }
+
+    /**
+     * Create a policy without any rules; no object gets freshness headers.
+     */
+    public CachePolicy() {
+    }
+
+    /**
+     * Create a policy from the rules in the given file.
+     *
+     * @param rulesFile file containing one rule per line
+     * @throws IOException if the file can't be read
+     * @throws IllegalArgumentException if a rule is improperly formatted
+     */
+    public CachePolicy(String rulesFile) throws IOException {
+        BufferedReader reader = new BufferedReader(new FileReader(rulesFile));
+        try {
+            String line;
+            int lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith(COMMENT)) {
+                    continue;
+                }
+                addRule(line, lineNumber);
+            }
+        }
+        finally {
+            Utils.closeGracefully(reader);
+        }
+    }
+
+    // compile a single "kind match value" rule into the matcher
+    private void addRule(String line, int lineNumber) {
+        // the Cache-Control value may itself contain spaces, so we only split off the first two fields
+        String[] fields = line.split("\\s+", 3);
+        if (fields.length != 3) {
+            throw new IllegalArgumentException("line " + lineNumber + ": expected \"kind match value\"");
+        }
+
+        String kind = fields[0];
+        String match = fields[1];
+        Directive directive = new Directive(fields[2], parseMaxAge(fields[2], lineNumber));
+        int ruleIndex = directives.size();
+
+        if (kind.equals(PREFIX_RULE)) {
+            prefixes.add(match);
+            prefixRules.add(ruleIndex);
+        }
+        else if (kind.equals(EXTENSION_RULE)) {
+            extensionRules.putIfAbsent(match.toLowerCase(), ruleIndex);
+        }
+        else if (kind.equals(TYPE_RULE)) {
+            typeRules.putIfAbsent(match.toLowerCase(), ruleIndex);
+        }
+        else {
+            throw new IllegalArgumentException("line " + lineNumber + ": unknown rule kind \"" + kind + "\"");
+        }
+        directives.add(directive);
+    }
+
+    // find the max-age directive in a Cache-Control value
+    private static long parseMaxAge(String cacheControl, int lineNumber) {
+        for (String token : cacheControl.split(",")) {
+            token = token.trim().toLowerCase();
+            if (token.startsWith(MAX_AGE)) {
+                long maxAge;
+                try {
+                    maxAge = Long.parseLong(token.substring(MAX_AGE.length()));
+                }
+                catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("line " + lineNumber + ": invalid " + token);
+                }
+                if (maxAge < 0) {
+                    throw new IllegalArgumentException("line " + lineNumber + ": negative " + token);
+                }
+                return maxAge;
+            }
+        }
+        return Directive.NO_MAX_AGE;
+    }
+
+    /**
+     * Find the directive for an object.
+     *
+     * @param objectPath path of the object as requested by the client (normalized before matching)
+     * @param object the file containing the object
+     * @param contentType MIME type of the object (may be null if it couldn't be determined)
+     * @return The directive of the first matching rule, or null if no rule matches.
+     */
+    public Directive getDirective(String objectPath, File object, String contentType) {
+        if (directives.isEmpty()) {
+            return null;
+        }
+
+        String normalizedPath = normalize(objectPath);
+        long lastModified = object.lastModified();
+        CachedDirective cached = cache.get(normalizedPath);
+        if (cached != null && cached.lastModified == lastModified) {
+            return cached.directive;
+        }
+
+        Directive directive = match(normalizedPath, object.getName(), contentType);
+        cache.put(normalizedPath, new CachedDirective(lastModified, directive));
+        return directive;
+    }
+
+    /*
+     * Spell an object path the one way the prefix rules expect: a single leading "/", no empty, "." or ".."
+     * segments (a ".." never climbs above the root). Every spelling of a file thus maps to one cache entry.
+     */
+    private static String normalize(String objectPath) {
+        Deque<String> segments = new ArrayDeque<String>();
+        for (String segment : objectPath.split(PATH_SEPARATOR)) {
+            if (segment.isEmpty() || segment.equals(CURRENT_DIRECTORY)) {
+                continue;
+            }
+            if (segment.equals(PARENT_DIRECTORY)) {
+                segments.pollLast();
+                continue;
+            }
+            segments.addLast(segment);
+        }
+        return PATH_SEPARATOR + String.join(PATH_SEPARATOR, segments);
+    }
+
+    // find the lowest numbered rule matching the object
+    private Directive match(String objectPath, String fileName, String contentType) {
+        int rule = NO_RULE;
+
+        int extensionStart = fileName.lastIndexOf('.');
+        if (extensionStart != -1) {
+            rule = Math.min(rule, extensionRules.getOrDefault(fileName.substring(extensionStart + 1).toLowerCase(), NO_RULE));
+        }
+        if (contentType != null) {
+            rule = Math.min(rule, typeRules.getOrDefault(contentType.toLowerCase(), NO_RULE));
+        }
+
+        // prefix rules are in file order, so there's no point looking past the best rule found so far
+        for (int i = 0; i < prefixes.size() && prefixRules.get(i) < rule; i++) {
+            if (objectPath.startsWith(prefixes.get(i))) {
+                rule = prefixRules.get(i);
+            }
+        }
+
+        if (rule == NO_RULE) {
+            return null;
+        }
+        return directives.get(rule);
+    }
+}
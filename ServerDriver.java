@@ -4,9 +4,15 @@
  */
 
 import java.io.*;
+import java.nio.file.*;
+import java.security.GeneralSecurityException;
+import java.text.ParseException;
 import java.util.*;
 import java.util.logging.*;
 
+import jdk.jfr.Configuration;
+import jdk.jfr.Recording;
+
 
 public class ServerDriver {
 
@@ -19,17 +25,29 @@ public class ServerDriver {
         
         // set the parameters
         int serverPort = Integer.parseInt( params.getOrDefault("-p", "2025") ); // server port number
+        int tlsPort = Integer.parseInt( params.getOrDefault("-tp", "0") ); // TLS port number, 0 means no TLS port
+        String keyStore = params.get("-ks"); // keystore with the server's key and certificate, required for the TLS port
+        String keyStorePassword = params.getOrDefault("-kp", ""); // password of the keystore and its key
         int conTimeout = Integer.parseInt( params.getOrDefault("-t", "0") ); // idle connection timeout in milli-seconds, 0 means infinity
         String rootDir = params.getOrDefault("-r", System.getProperty("user.dir")); // root directory of the web server, default is current directory
+        String cacheRules = params.get("-c"); // Cache-Control rules file, no freshness headers if absent
+        long globalBandwidth = Long.parseLong( params.getOrDefault("-bw", "0") ); // bytes per second for all connections, 0 means unlimited
+        long connectionBandwidth = Long.parseLong( params.getOrDefault("-cbw", "0") ); // bytes per second for each connection, 0 means unlimited
         Level logLevel = Level.parse( params.getOrDefault("-v", "all").toUpperCase() ); // log levels: all, info, off
+        String recordingFile = params.get("-j"); // flight recording written here on shutdown, none if absent
+        String recordingSettings = params.getOrDefault("-s", "default"); // JFR settings profile: default, profile, or a .jfc file
 
         // standard output
         setLogLevel(logLevel);
 
         System.out.println("log level is set to " + logLevel);
         System.out.println("starting the server on port " + serverPort);
+        TlsContext tlsContext = loadTlsContext(tlsPort, keyStore, keyStorePassword);
         System.out.println("root directory set to " + rootDir);
-        WebServer server = new WebServer(serverPort, rootDir, conTimeout);
+        CachePolicy cachePolicy = loadCachePolicy(cacheRules);
+        BandwidthScheduler bandwidthScheduler = createBandwidthScheduler(connectionBandwidth, globalBandwidth);
+        Recording recording = startRecording(recordingFile, recordingSettings);
+        WebServer server = new WebServer(serverPort, tlsPort, tlsContext, rootDir, cachePolicy, bandwidthScheduler, conTimeout);
         
         // start the server
         server.start();
@@ -50,6 +68,7 @@ public class ServerDriver {
             // Ok, ignore
             System.out.println("server did not shutdown properly");
         }
+        stopRecording(recording);
 
 		System.exit(0);
 	}
@@ -69,6 +88,98 @@ public class ServerDriver {
         }
     }    
 
+	// create the bandwidth scheduler; like the cache rules, invalid caps stop the server from starting
+	private static BandwidthScheduler createBandwidthScheduler(long connectionBandwidth, long globalBandwidth) {
+		try {
+			return new BandwidthScheduler(connectionBandwidth, globalBandwidth, Utils.BUFFER_SIZE);
+		} catch (IllegalArgumentException e) {
+			System.out.println("invalid bandwidth caps (-cbw " + connectionBandwidth + ", -bw " + globalBandwidth + "): " + e.getMessage());
+			System.exit(Utils.UNSUCCESSFUL_TERMINATION);
+			return null;
+		}
+	}
+
+
+	// load the server's certificate for the TLS port; like the cache rules, a broken setup stops the server from starting
+	private static TlsContext loadTlsContext(int tlsPort, String keyStore, String keyStorePassword) {
+		if (tlsPort == WebServer.NO_TLS_PORT) {
+			return null;
+		}
+		if (keyStore == null) {
+			System.out.println("a keystore (-ks) is required for the TLS port");
+			System.exit(Utils.UNSUCCESSFUL_TERMINATION);
+		}
+
+		try {
+			TlsContext tlsContext = new TlsContext(keyStore, keyStorePassword);
+			System.out.println("starting TLS on port " + tlsPort + " with keystore " + keyStore);
+			return tlsContext;
+		} catch (IOException | GeneralSecurityException e) {
+			System.out.println("could not load keystore " + keyStore + ": " + e.getMessage());
+			System.exit(Utils.UNSUCCESSFUL_TERMINATION);
+			return null;
+		}
+	}
+
+
+	// load the cache rules; serving objects with the wrong freshness is worse than not starting at all
+	private static CachePolicy loadCachePolicy(String cacheRules) {
+		if (cacheRules == null) {
+			return new CachePolicy();
+		}
+
+		try {
+			CachePolicy cachePolicy = new CachePolicy(cacheRules);
+			System.out.println("cache rules loaded from " + cacheRules);
+			return cachePolicy;
+		} catch (IOException | IllegalArgumentException e) {
+			System.out.println("could not load cache rules from " + cacheRules + ": " + e.getMessage());
+			System.exit(Utils.UNSUCCESSFUL_TERMINATION);
+			return null;
+		}
+	}
+
+
+	// start a flight recording that is dumped to the given file when stopped; null if none was requested
+	private static Recording startRecording(String recordingFile, String recordingSettings) {
+		if (recordingFile == null) {
+			return null;
+		}
+
+		try {
+			Configuration configuration;
+			if (recordingSettings.endsWith(".jfc")) {
+				configuration = Configuration.create(Paths.get(recordingSettings));
+			} else {
+				configuration = Configuration.getConfiguration(recordingSettings);
+			}
+
+			Recording recording = new Recording(configuration);
+			recording.setName("WebServer");
+			recording.setDestination(Paths.get(recordingFile));
+			recording.start();
+			System.out.println("flight recording to " + recordingFile + " using \"" + recordingSettings + "\" settings");
+			return recording;
+		} catch (IOException | ParseException e) {
+			// Ok, serve without a recording rather than refusing to start
+			System.out.println("could not start flight recording: " + e.getMessage());
+			return null;
+		}
+	}
+
+
+	// stop the flight recording (if any), which writes it to its destination
+	private static void stopRecording(Recording recording) {
+		if (recording == null) {
+			return;
+		}
+
+		recording.stop();
+		recording.close();
+		System.out.println("flight recording written");
+	}
+
+
 	// parse command line arguments
 	private static HashMap<String, String> parseCommandLine(String[] args) {
 		HashMap<String, String> params = new HashMap<String, String>();
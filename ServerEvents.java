@@ -0,0 +1,122 @@
+/**
+ * ServerEvents Class
+ *
+ * Java Flight Recorder events emitted over the lifecycle of a single request. Each phase (accepting
+ * the connection, parsing the request, looking up the object, sending the response) gets its own
+ * event so that a recording shows where the time went next to GC and socket I/O events.
+ */
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+public class ServerEvents {
+    private static final String CATEGORY = "WebServer";
+
+    /*
+     * Stack traces are disabled on all of our events. The phase and the path already tell us where we
+     * are, and walking the stack on every commit would make the events far from cheap.
+     */
+
+    /**
+     * Marks a client connection being accepted. Its start time is the moment accept() returned and its duration
+     * is only the cost of recording it; the time until a worker picks the connection up is the queue time of Parse.
+     */
+    @Name("webserver.Accept")
+    @Label("Connection Accepted")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    public static class Accept extends Event {
+        @Label("Remote Address")
+        public String remoteAddress;
+
+        @Label("Remote Port")
+        public int remotePort;
+
+        @Label("TLS")
+        public boolean tls;
+    }
+
+    /**
+     * Covers reading and validating the request line and headers.
+     */
+    @Name("webserver.Parse")
+    @Label("Request Parsed")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    public static class Parse extends Event {
+        @Label("Object Path")
+        public String path;
+
+        @Label("Formatted Correctly")
+        public boolean formattedCorrectly;
+
+        @Label("Queue Time")
+        @Description("Time between the connection being accepted and the worker starting")
+        @Timespan(Timespan.NANOSECONDS)
+        public long queueNanos;
+    }
+
+    /**
+     * Covers locating the requested object in the root directory.
+     */
+    @Name("webserver.Lookup")
+    @Label("Object Lookup")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    public static class Lookup extends Event {
+        @Label("Object Path")
+        public String path;
+
+        @Label("Found")
+        public boolean found;
+    }
+
+    /**
+     * Covers writing the status line, headers and object to the socket.
+     */
+    @Name("webserver.Response")
+    @Label("Response Sent")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    public static class Response extends Event {
+        @Label("Object Path")
+        public String path;
+
+        @Label("Status Code")
+        public int status;
+
+        @Label("Bytes Written")
+        @DataAmount
+        public long bytes;
+
+        @Label("Throttled Time")
+        @Description("Time spent waiting for the bandwidth scheduler")
+        @Timespan(Timespan.NANOSECONDS)
+        public long throttledNanos;
+    }
+
+    /**
+     * Covers the TLS handshake of a connection accepted on the TLS port.
+     */
+    @Name("webserver.TlsHandshake")
+    @Label("TLS Handshake")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    public static class TlsHandshake extends Event {
+        @Label("Protocol")
+        public String protocol;
+
+        @Label("Cipher Suite")
+        public String cipherSuite;
+
+        @Label("Resumed")
+        @Description("Whether the client resumed an earlier session instead of doing a full handshake")
+        public boolean resumed;
+    }
+}
@@ -10,11 +10,18 @@ import java.nio.file.*;
 import java.io.*;
 import java.util.*;
 import java.text.*;
+import java.time.*;
+import java.time.format.*;
 
 
 public class ServerUtils {
 	
 	private final static String HTTP_DATE_FORMAT = "EEE, dd MMM yyyy hh:mm:ss zzz";
+	// caches must treat Expires as a date in GMT; RFC 7234 advises against expiring more than a year ahead
+	private final static long MAX_EXPIRES_SECONDS = 365L * 24 * 60 * 60;
+	// RFC 7231 IMF-fixdate; unlike RFC_1123_DATE_TIME, the day always has two digits
+	private final static DateTimeFormatter IMF_FIXDATE = 
+		DateTimeFormatter.ofPattern("EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.US);
 	
 	/**
 	 * Returns the current date of the system
@@ -62,6 +69,19 @@ public class ServerUtils {
 		return dateLongToString(object.lastModified());
 	}
 
+
+	/**
+	 * Returns the date at which an object fetched now expires, capped at one year from now
+	 * 
+	 * @param maxAgeSeconds How long the object stays fresh, in seconds (not negative)
+	 * @return String Expiry date of the object following RFC 7231 format (always in GMT)
+	 * 
+	 */
+	public static String getExpires(long maxAgeSeconds) {
+		Instant expires = Instant.now().plusSeconds(Math.min(maxAgeSeconds, MAX_EXPIRES_SECONDS));
+		return IMF_FIXDATE.format(expires.atOffset(ZoneOffset.UTC));
+	}
+
 	
 	// Coverts a date from long (in milli seconds) format to a string format
 	private static String dateLongToString(long longDate) {
@@ -0,0 +1,323 @@
+/**
+ * TlsConnection Class
+ *
+ * Drives an SSLEngine over a blocking socket, so that worker threads can read requests and write responses
+ * through ordinary streams without knowing the connection is encrypted.
+ */
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLException;
+import javax.net.ssl.SSLSession;
+
+public class TlsConnection implements Closeable {
+    private final TlsContext tlsContext;
+    private final SSLEngine engine;
+    private final InputStream socketInputStream;
+    private final OutputStream socketOutputStream;
+
+    /*
+     * netIn holds encrypted bytes read from the socket that haven't been unwrapped yet, appIn holds decrypted
+     * bytes the worker hasn't read yet, and netOut holds encrypted bytes about to be written to the socket.
+     * netIn and appIn are kept ready for reading (flipped) between calls; netOut is always empty between calls.
+     */
+    private ByteBuffer netIn;
+    private ByteBuffer appIn;
+    private ByteBuffer netOut;
+
+    private boolean handshakeDone = false;
+    private boolean handshakeFailed = false;
+    private boolean inboundClosed = false;
+    private final InputStream inputStream = new TlsInputStream();
+    private final OutputStream outputStream = new TlsOutputStream();
+
+    /**
+     * @param tlsContext // context the handshake is reported to
+     * @param engine // server-side engine for this connection
+     * @param socket // socket accepted on the TLS port
+     * @throws IOException if the socket's streams can't be obtained
+     */
+    public TlsConnection(TlsContext tlsContext, SSLEngine engine, Socket socket) throws IOException {
+        this.tlsContext = tlsContext;
+        this.engine = engine;
+        this.socketInputStream = socket.getInputStream();
+        this.socketOutputStream = socket.getOutputStream();
+
+        SSLSession session = engine.getSession();
+        this.netIn = ByteBuffer.allocate(session.getPacketBufferSize());
+        this.appIn = ByteBuffer.allocate(session.getApplicationBufferSize());
+        this.netOut = ByteBuffer.allocate(session.getPacketBufferSize());
+        netIn.flip();
+        appIn.flip();
+    }
+
+    public InputStream getInputStream() {
+        return inputStream;
+    }
+
+    public OutputStream getOutputStream() {
+        return outputStream;
+    }
+
+    /**
+     * @return whether the handshake completed, ie. whether anything can be sent to the client
+     */
+    public boolean isHandshakeDone() {
+        return handshakeDone;
+    }
+
+    /*
+     * Performs the handshake the first time the connection is used. The engine tells us what it needs next
+     * (send something, receive something, or run a delegated task) until the handshake is done.
+     *
+     * A handshake that failed (eg. the client timed out) is never restarted; otherwise trying to send an error
+     * response would block on the socket all over again for a response the client could never decrypt.
+     */
+    private void ensureHandshake() throws IOException {
+        if (handshakeDone) {
+            return;
+        }
+        if (handshakeFailed) {
+            throw new SSLException("TLS handshake did not complete");
+        }
+        handshakeFailed = true;
+
+        long startedAt = System.currentTimeMillis();
+        ServerEvents.TlsHandshake handshakeEvent = new ServerEvents.TlsHandshake();
+        handshakeEvent.begin();
+
+        engine.beginHandshake();
+        while (processHandshakeStatus()) {
+            if (engine.getHandshakeStatus() == SSLEngineResult.HandshakeStatus.NEED_UNWRAP) {
+                if (!unwrap()) {
+                    throw new EOFException("connection closed during TLS handshake");
+                }
+            }
+        }
+        handshakeDone = true;
+        handshakeFailed = false;
+
+        /*
+         * A resumed session was created by an earlier handshake; a full handshake creates a brand new one.
+         */
+        SSLSession session = engine.getSession();
+        boolean resumed = session.getCreationTime() < startedAt;
+        tlsContext.recordHandshake(resumed);
+
+        handshakeEvent.end();
+        if (handshakeEvent.shouldCommit()) {
+            handshakeEvent.protocol = session.getProtocol();
+            handshakeEvent.cipherSuite = session.getCipherSuite();
+            handshakeEvent.resumed = resumed;
+            handshakeEvent.commit();
+        }
+    }
+
+    /*
+     * Does whatever the engine needs that doesn't involve reading from the socket. Returns true if the
+     * engine is still handshaking (ie. it now needs to unwrap data from the client).
+     */
+    private boolean processHandshakeStatus() throws IOException {
+        while (true) {
+            switch (engine.getHandshakeStatus()) {
+                case NEED_TASK:
+                    Runnable task;
+                    while ((task = engine.getDelegatedTask()) != null) {
+                        task.run();
+                    }
+                    break;
+                case NEED_WRAP:
+                    wrap(ByteBuffer.allocate(0));
+                    break;
+                case NEED_UNWRAP:
+                case NEED_UNWRAP_AGAIN:
+                    return true;
+                default:
+                    return false;
+            }
+        }
+    }
+
+    /*
+     * Unwraps the next record from the client into appIn, reading from the socket until a full record has
+     * arrived. Returns false if the client closed the connection.
+     */
+    private boolean unwrap() throws IOException {
+        while (true) {
+            netIn.compact();
+            appIn.compact();
+            SSLEngineResult result;
+            try {
+                netIn.flip();
+                result = engine.unwrap(netIn, appIn);
+            }
+            finally {
+                appIn.flip();
+            }
+
+            switch (result.getStatus()) {
+                case OK:
+                    return true;
+                case CLOSED:
+                    inboundClosed = true;
+                    return false;
+                case BUFFER_OVERFLOW:
+                    appIn = enlarge(appIn, engine.getSession().getApplicationBufferSize());
+                    break;
+                case BUFFER_UNDERFLOW:
+                    if (netIn.limit() == netIn.capacity() || netIn.capacity() < engine.getSession().getPacketBufferSize()) {
+                        netIn = enlarge(netIn, engine.getSession().getPacketBufferSize());
+                    }
+                    if (!readFromSocket()) {
+                        inboundClosed = true;
+                        return false;
+                    }
+                    break;
+            }
+        }
+    }
+
+    // appends bytes from the socket to netIn; returns false at the end of the stream
+    private boolean readFromSocket() throws IOException {
+        netIn.compact();
+        try {
+            int numBytes = socketInputStream.read(netIn.array(), netIn.arrayOffset() + netIn.position(), netIn.remaining());
+            if (numBytes == Utils.EOF) {
+                return false;
+            }
+            netIn.position(netIn.position() + numBytes);
+            return true;
+        }
+        finally {
+            netIn.flip();
+        }
+    }
+
+    // wraps all of the given application bytes and writes the resulting records to the socket
+    private void wrap(ByteBuffer appOut) throws IOException {
+        while (true) {
+            SSLEngineResult result = engine.wrap(appOut, netOut);
+            switch (result.getStatus()) {
+                case OK:
+                case CLOSED:
+                    netOut.flip();
+                    socketOutputStream.write(netOut.array(), netOut.arrayOffset(), netOut.limit());
+                    netOut.clear();
+                    if (result.getStatus() == SSLEngineResult.Status.CLOSED || !appOut.hasRemaining()) {
+                        return;
+                    }
+                    break;
+                case BUFFER_OVERFLOW:
+                    // nothing was consumed, so we simply try again with a larger buffer
+                    netOut = ByteBuffer.allocate(Math.max(netOut.capacity() * 2, engine.getSession().getPacketBufferSize()));
+                    break;
+                case BUFFER_UNDERFLOW:
+                    throw new SSLException("unexpected underflow while wrapping");
+            }
+        }
+    }
+
+    // returns a larger copy of a (flipped) buffer
+    private static ByteBuffer enlarge(ByteBuffer buffer, int minimumCapacity) {
+        ByteBuffer larger = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, minimumCapacity));
+        larger.put(buffer);
+        larger.flip();
+        return larger;
+    }
+
+    /**
+     * Send close_notify to the client (if the handshake got that far), then stop using the engine. The socket
+     * itself is closed by its owner.
+     */
+    public void close() throws IOException {
+        if (!handshakeDone || engine.isOutboundDone()) {
+            return;
+        }
+
+        /*
+         * The client may already be gone (eg. after a timeout), in which case there is nobody to notify. We must
+         * not throw here, because the owner still needs to go on to close the socket itself.
+         */
+        try {
+            engine.closeOutbound();
+            while (!engine.isOutboundDone()) {
+                wrap(ByteBuffer.allocate(0));
+            }
+            socketOutputStream.flush();
+        }
+        catch (IOException e) {
+            // Ok, ignore
+        }
+    }
+
+    // decrypted view of the client's bytes
+    private class TlsInputStream extends InputStream {
+        /*
+         * The worker parses requests one byte at a time, so single bytes are served straight from appIn; only
+         * once it runs dry do we go through the handshake check and unwrap another record.
+         */
+        public int read() throws IOException {
+            if (!appIn.hasRemaining() && !awaitApplicationData()) {
+                return Utils.EOF;
+            }
+            return appIn.get() & 0xff;
+        }
+
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            if (length == 0) {
+                return 0;
+            }
+            if (!appIn.hasRemaining() && !awaitApplicationData()) {
+                return Utils.EOF;
+            }
+
+            int numBytes = Math.min(length, appIn.remaining());
+            appIn.get(buffer, offset, numBytes);
+            return numBytes;
+        }
+
+        /*
+         * A record doesn't necessarily contain application data (eg. a TLS 1.3 key update), so we keep
+         * unwrapping until there is something to return. Returns false if the client closed the connection.
+         */
+        private boolean awaitApplicationData() throws IOException {
+            ensureHandshake();
+            while (!appIn.hasRemaining()) {
+                if (inboundClosed || !unwrap()) {
+                    return false;
+                }
+                processHandshakeStatus();
+            }
+            return true;
+        }
+    }
+
+    // encrypting view of the socket's output stream
+    private class TlsOutputStream extends OutputStream {
+        public void write(int oneByte) throws IOException {
+            write(new byte[] { (byte) oneByte }, Utils.OFFSET, 1);
+        }
+
+        public void write(byte[] buffer, int offset, int length) throws IOException {
+            ensureHandshake();
+            wrap(ByteBuffer.wrap(buffer, offset, length));
+            processHandshakeStatus();
+        }
+
+        public void flush() throws IOException {
+            socketOutputStream.flush();
+        }
+
+        public void close() throws IOException {
+            TlsConnection.this.close();
+        }
+    }
+}
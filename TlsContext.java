@@ -0,0 +1,97 @@
+/**
+ * TlsContext Class
+ *
+ * Holds everything shared by the server's TLS connections: the server's certificate, the session cache that
+ * lets returning clients resume their session instead of going through a full handshake, and handshake counters.
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.net.Socket;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLSessionContext;
+
+public class TlsContext {
+    private static final String PROTOCOL = "TLS";
+    // stateless resumption; TLS 1.3 clients get a ticket, TLS 1.2 clients use the ticket extension
+    private static final String SESSION_TICKETS_PROPERTY = "jdk.tls.server.enableSessionTicketExtension";
+    private static final int SESSION_CACHE_SIZE = 10000;
+    private static final int SESSION_TIMEOUT_SECONDS = 24 * 60 * 60;
+
+    private final SSLContext sslContext;
+    private final AtomicLong fullHandshakes = new AtomicLong();
+    private final AtomicLong resumedHandshakes = new AtomicLong();
+
+    /**
+     * @param keyStoreFile // keystore (PKCS12 or JKS) containing the server's private key and certificate
+     * @param keyStorePassword // password of both the keystore and the key inside it
+     * @throws IOException if the keystore can't be read
+     * @throws GeneralSecurityException if the keystore or its key can't be used
+     */
+    public TlsContext(String keyStoreFile, String keyStorePassword) throws IOException, GeneralSecurityException {
+        /*
+         * The property is read when the JDK's TLS implementation is first loaded, so it must be set before
+         * we ask for an SSLContext.
+         */
+        System.setProperty(SESSION_TICKETS_PROPERTY, "true");
+
+        char[] password = keyStorePassword.toCharArray();
+        KeyStore keyStore = KeyStore.getInstance(new File(keyStoreFile), password);
+        KeyManagerFactory keyManagerFactory = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+        keyManagerFactory.init(keyStore, password);
+
+        sslContext = SSLContext.getInstance(PROTOCOL);
+        sslContext.init(keyManagerFactory.getKeyManagers(), null, null);
+
+        SSLSessionContext sessionContext = sslContext.getServerSessionContext();
+        sessionContext.setSessionCacheSize(SESSION_CACHE_SIZE);
+        sessionContext.setSessionTimeout(SESSION_TIMEOUT_SECONDS);
+    }
+
+    /**
+     * Create a server-side engine for a new connection. The engine doesn't do any I/O itself, so it can be
+     * driven by a blocking socket (see TlsConnection) just as well as by a non-blocking channel.
+     *
+     * @return An engine ready to handshake with a client.
+     */
+    public SSLEngine createEngine() {
+        SSLEngine engine = sslContext.createSSLEngine();
+        engine.setUseClientMode(false);
+        return engine;
+    }
+
+    /**
+     * Wrap a newly accepted socket in a TLS connection. The handshake takes place on the first read or write.
+     *
+     * @param socket // socket accepted on the TLS port
+     * @return The TLS connection over the socket.
+     * @throws IOException if the socket's streams can't be obtained
+     */
+    public TlsConnection wrap(Socket socket) throws IOException {
+        return new TlsConnection(this, createEngine(), socket);
+    }
+
+    // called by connections once their handshake is done
+    void recordHandshake(boolean resumed) {
+        if (resumed) {
+            resumedHandshakes.incrementAndGet();
+        }
+        else {
+            fullHandshakes.incrementAndGet();
+        }
+    }
+
+    public long getFullHandshakes() {
+        return fullHandshakes.get();
+    }
+
+    public long getResumedHandshakes() {
+        return resumedHandshakes.get();
+    }
+}
@@ -26,10 +26,15 @@ public class WebServer extends Thread {
     private static final int CHECK_SHUTDOWN_INTERVAL = 100;
     private static final long DEFAULT_SERVER_SHUTDOWN_TIME = 1000;
     private static final int INFINITE = 0;
+    public static final int NO_TLS_PORT = 0;
 
-	private boolean shutdown = false; // shutdown flag
+	private volatile boolean shutdown = false; // shutdown flag, read by both listeners
     private int port;
+    private int tlsPort;
+    private TlsContext tlsContext;
     private String root;
+    private CachePolicy cachePolicy;
+    private BandwidthScheduler bandwidthScheduler;
     private int timeout;
     private long serverShutdownTime;
     private ExecutorService executorService;
@@ -38,13 +43,21 @@ public class WebServer extends Thread {
      * Constructor to initialize the web server
      * 
      * @param port 	Server port at which the web server listens > 1024
+     * @param tlsPort	Server port at which the web server listens for TLS connections, or NO_TLS_PORT
+     * @param tlsContext	Context used to encrypt connections on the TLS port (null if there is no TLS port)
 	 * @param root	Server's root file directory
+	 * @param cachePolicy	Rules deciding the freshness headers of served objects
+	 * @param bandwidthScheduler	Scheduler sharing outgoing bandwidth between connections
 	 * @param timeout	Idle connection timeout in milli-seconds
      * 
      */
-	public WebServer(int port, String root, int timeout) {
+	public WebServer(int port, int tlsPort, TlsContext tlsContext, String root, CachePolicy cachePolicy, BandwidthScheduler bandwidthScheduler, int timeout) {
         this.port = port;
+        this.tlsPort = tlsPort;
+        this.tlsContext = tlsContext;
         this.root = root;
+        this.cachePolicy = cachePolicy;
+        this.bandwidthScheduler = bandwidthScheduler;
         this.timeout = timeout;
 
         /*
@@ -76,6 +89,7 @@ public class WebServer extends Thread {
          * This is because the worker threads themselves will close each individual client socket. 
          */
         ServerSocket serverSocket = null;
+        ServerSocket tlsServerSocket = null;
 
         /* 
          * if we can't even open a server socket or configure its shutdown interval, 
@@ -84,18 +98,78 @@ public class WebServer extends Thread {
         try {
             serverSocket = new ServerSocket(port);
             serverSocket.setSoTimeout(CHECK_SHUTDOWN_INTERVAL);
+            if (tlsContext != null) {
+                tlsServerSocket = new ServerSocket(tlsPort);
+                tlsServerSocket.setSoTimeout(CHECK_SHUTDOWN_INTERVAL);
+            }
         } 
         catch (IOException e) {
             e.printStackTrace();
-            cleanup(serverSocket);
+            cleanup(serverSocket, tlsServerSocket);
+            return;
         }
 
+        /*
+         * accept() blocks, so each port needs its own listening thread. The TLS listener stops on the same
+         * shutdown flag as this one, so by the time we are done listening it will be done shortly after.
+         */
+        Thread tlsListener = null;
+        if (tlsServerSocket != null) {
+            ServerSocket listeningSocket = tlsServerSocket;
+            tlsListener = new Thread(() -> listen(listeningSocket, tlsContext));
+            tlsListener.start();
+        }
+
+        listen(serverSocket, null);
+        try {
+            if (tlsListener != null) {
+                tlsListener.join();
+            }
+        }
+        catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+
+        cleanup(serverSocket, tlsServerSocket);
+        System.out.println("Sent " + bandwidthScheduler.getTotalBytes() + " bytes of objects, throttled for " +
+                           bandwidthScheduler.getTotalThrottledNanos() / 1000000 + " ms in total");
+        if (tlsContext != null) {
+            System.out.println("TLS handshakes: " + tlsContext.getFullHandshakes() + " full, " + 
+                               tlsContext.getResumedHandshakes() + " resumed");
+        }
+    }
+
+    /**
+     * Accept connections on a server socket and hand each of them to a worker, until the server is shut down.
+     *
+     * @param serverSocket the serverSocket listening for connections
+     * @param tlsContext context used to encrypt the accepted connections, or null for plaintext connections
+     */
+    private void listen(ServerSocket serverSocket, TlsContext tlsContext) {
         while (!shutdown) {
             try {
                 Socket newSocketForClient = serverSocket.accept();
-                System.out.println("New connection from " + newSocketForClient.getInetAddress() +
-                                   ":" + newSocketForClient.getPort() + Utils.EOL);
-                WorkerThread workerThread = new WorkerThread(SERVER_NAME, root, newSocketForClient, timeout);
+                ServerEvents.Accept acceptEvent = new ServerEvents.Accept();
+                acceptEvent.begin();
+                long acceptedAt = System.nanoTime();
+
+                /*
+                 * Only marks the moment the connection was accepted: begin() stamps the event right after accept()
+                 * returns, and it is committed before the console output and the submit. The time spent in the 
+                 * kernel's accept queue can't be seen from here, and the time the worker then waits for a thread 
+                 * is reported by the worker itself (see ServerEvents.Parse).
+                 */
+                if (acceptEvent.shouldCommit()) {
+                    acceptEvent.remoteAddress = newSocketForClient.getInetAddress().getHostAddress();
+                    acceptEvent.remotePort = newSocketForClient.getPort();
+                    acceptEvent.tls = tlsContext != null;
+                    acceptEvent.commit();
+                }
+
+                System.out.println("New " + (tlsContext != null ? "TLS " : "") + "connection from " + 
+                                   newSocketForClient.getInetAddress() + ":" + newSocketForClient.getPort() + Utils.EOL);
+                WorkerThread workerThread = new WorkerThread(SERVER_NAME, root, cachePolicy, bandwidthScheduler,
+                                                             newSocketForClient, tlsContext, timeout, acceptedAt);
                 executorService.submit(workerThread);
             } 
             /*
@@ -114,15 +188,14 @@ public class WebServer extends Thread {
                 e.printStackTrace();
             } 
         }
-        cleanup(serverSocket);
     }
 
     /**
      * Close all opened streams, sockets, and other resources before terminating the program.
      *
-     * @param serverSocket the serverSocket listening for connections
+     * @param serverSockets the serverSockets listening for connections
      */
-    private void cleanup(ServerSocket serverSocket) {
+    private void cleanup(ServerSocket... serverSockets) {
         try {
             /*
              * The java documentation was interpreted as follows: 
@@ -153,7 +226,7 @@ public class WebServer extends Thread {
         catch (InterruptedException e) {
             e.printStackTrace();
         }
-        Utils.closeGracefully(serverSocket);
+        Utils.closeGracefully(serverSockets);
     }
 
     /**
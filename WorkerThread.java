@@ -17,24 +17,41 @@ public class WorkerThread extends Thread {
     // connection variables
     private String serverName;
     private String root;
+    private CachePolicy cachePolicy;
+    private BandwidthScheduler bandwidthScheduler;
     private Socket socket;
+    private TlsContext tlsContext;
+    private TlsConnection tlsConnection;
     private int timeout;
     private String objectPath;
     private InputStream inputStream;
     private OutputStream outputStream;
     private FileInputStream fileInputStream;
 
+    // request tracing variables
+    private long acceptedAt;
+    private int statusCode;
+
     /**
      * @param serverName // name of server used in response headers
      * @param root // root directory of the web server where objects are located
+     * @param cachePolicy // rules deciding the freshness headers of served objects
+     * @param bandwidthScheduler // scheduler sharing outgoing bandwidth between workers
      * @param socket // socket established with client over which communication takes place
+     * @param tlsContext // context used to encrypt the connection, or null for a plaintext connection
      * @param timeout // time period after which connection closes if no request received
+     * @param acceptedAt // System.nanoTime() at which the server accepted the connection
      */
-    public WorkerThread(String serverName, String root, Socket socket, int timeout) {
+    public WorkerThread(String serverName, String root, CachePolicy cachePolicy, BandwidthScheduler bandwidthScheduler,
+                        Socket socket, TlsContext tlsContext, int timeout, long acceptedAt) {
         this.serverName = serverName;
         this.root = root;
+        this.cachePolicy = cachePolicy;
+        this.bandwidthScheduler = bandwidthScheduler;
         this.socket = socket;
+        this.tlsContext = tlsContext;
         this.timeout = timeout;
+        this.acceptedAt = acceptedAt;
         
         this.objectPath = null;
         this.inputStream = null;
@@ -62,8 +79,20 @@ public class WorkerThread extends Thread {
         try {
             // included here so we don't need an exception block; could just as easily
             // have been initialized in the constructor
-            this.inputStream = socket.getInputStream();
-            this.outputStream = socket.getOutputStream();
+            if (tlsContext != null) {
+                /*
+                 * The rest of the worker reads and writes plaintext through these streams; the TLS connection 
+                 * handshakes on first use and encrypts/decrypts underneath. Closing its output stream 
+                 * sends close_notify to the client.
+                 */
+                this.tlsConnection = tlsContext.wrap(socket);
+                this.inputStream = tlsConnection.getInputStream();
+                this.outputStream = tlsConnection.getOutputStream();
+            }
+            else {
+                this.inputStream = socket.getInputStream();
+                this.outputStream = socket.getOutputStream();
+            }
             socket.setSoTimeout(timeout);
 
             // bad request?
@@ -90,6 +119,14 @@ public class WorkerThread extends Thread {
             // for formatting the console to look cleaner
             System.out.println();
 
+            /*
+             * If the client timed out before the TLS handshake completed, there is no way to encrypt a response
+             * for it, so we simply close the connection.
+             */
+            if (tlsConnection != null && !tlsConnection.isHandshakeDone()) {
+                return;
+            }
+
             /*
              * sending a response itself can generate an exception, which is why we have another try-catch block
              * inside of the timeout catch. Note that this is necessary: we can only be certain the connection timed out
@@ -138,6 +175,11 @@ public class WorkerThread extends Thread {
      * @return boolean denoting whether request is correctly formatted
      */
     private boolean parseRequest() throws IOException, InterruptedException {
+        // parsing is the first thing a worker does, so the time before this point was spent queued
+        long parseStartedAt = System.nanoTime();
+        ServerEvents.Parse parseEvent = new ServerEvents.Parse();
+        parseEvent.begin();
+
         /*
             initially, we have not read any bytes from the request. We need
             both prevByte and currByte because we need to keep track of two
@@ -234,6 +276,14 @@ public class WorkerThread extends Thread {
 
         checkInterruption();
         System.out.println(request);
+
+        parseEvent.end();
+        if (parseEvent.shouldCommit()) {
+            parseEvent.path = objectPath;
+            parseEvent.formattedCorrectly = requestFormattedCorrectly;
+            parseEvent.queueNanos = parseStartedAt - acceptedAt;
+            parseEvent.commit();
+        }
         return requestFormattedCorrectly;
     }
 
@@ -245,13 +295,22 @@ public class WorkerThread extends Thread {
      */
     private File obtainObject() throws InterruptedException {
         checkInterruption();
+        ServerEvents.Lookup lookupEvent = new ServerEvents.Lookup();
+        lookupEvent.begin();
 
         // we need to check that the user didn't just give us a directory
         File file = new File(root, objectPath);
-        if (file.exists() && file.isFile()) {
-            return file;
+        if (!file.exists() || !file.isFile()) {
+            file = null;
+        }
+
+        lookupEvent.end();
+        if (lookupEvent.shouldCommit()) {
+            lookupEvent.path = objectPath;
+            lookupEvent.found = file != null;
+            lookupEvent.commit();
         }
-        return null;
+        return file;
     }
 
     /**
@@ -263,9 +322,14 @@ public class WorkerThread extends Thread {
      * @throws InterruptedException 
      */
     private void sendResponse(String responseInfo, File responseObject) throws IOException, InterruptedException {
+        ServerEvents.Response responseEvent = new ServerEvents.Response();
+        responseEvent.begin();
+        BandwidthScheduler.Transfer transfer = bandwidthScheduler.register(socket.getInetAddress() + ":" + socket.getPort());
+
         // the status line and header are a string so we know we can easily convert them to bytes
         byte[] responseBytes = responseInfo.getBytes(Utils.STRING_TO_BYTE_CHARSET);
         outputStream.write(responseBytes);
+        long bytesWritten = responseBytes.length;
         checkInterruption();
 
         /*
@@ -275,6 +339,9 @@ public class WorkerThread extends Thread {
         * as we would get an IndexOutOfBounds exception when we reach the end.
         * 
         * The file could be of any format, so we need to actually read it using an input stream.
+        * 
+        * Every chunk waits for the bandwidth scheduler before being written, so that other workers get a turn
+        * to write their own chunks in between (the headers are small enough to not be worth scheduling).
         */
         if (responseObject != null) {
             int numBytes = 0;
@@ -283,7 +350,9 @@ public class WorkerThread extends Thread {
     
             while ((numBytes = fileInputStream.read(buffer)) != Utils.EOF) {
                 checkInterruption();
+                bandwidthScheduler.acquire(transfer, numBytes);
                 outputStream.write(buffer, Utils.OFFSET, numBytes);
+                bytesWritten += numBytes;
             }    
         }
 
@@ -291,6 +360,20 @@ public class WorkerThread extends Thread {
         checkInterruption();
         outputStream.flush();
         System.out.println(responseInfo);
+        long throttledMillis = transfer.getThrottledNanos() / 1000000;
+        if (throttledMillis > 0) {
+            System.out.println("Throttled " + transfer.getName() + " for " + throttledMillis +
+                               " ms while sending " + transfer.getBytes() + " bytes" + Utils.EOL);
+        }
+
+        responseEvent.end();
+        if (responseEvent.shouldCommit()) {
+            responseEvent.path = objectPath;
+            responseEvent.status = statusCode;
+            responseEvent.bytes = bytesWritten;
+            responseEvent.throttledNanos = transfer.getThrottledNanos();
+            responseEvent.commit();
+        }
     }
 
     /**
@@ -305,6 +388,8 @@ public class WorkerThread extends Thread {
      * @throws InterruptedException 
      */
     private String constructResponseInfo(int httpStatusCode, String httpStatusPhrase, boolean isOK, File file) throws IOException, InterruptedException {
+        // remembered so that the response event can report it once the response is sent
+        statusCode = httpStatusCode;
         String statusLine = Utils.HTTP_VERSION + " " + httpStatusCode + " " + httpStatusPhrase + Utils.EOL;
         String headers = constructHeaders(isOK, file);
 
@@ -334,12 +419,35 @@ public class WorkerThread extends Thread {
         if (isOK) {
             String lastModified = "Last-Modified: " + ServerUtils.getLastModified(file) + Utils.EOL;
             String contentLength = "Content-Length: " + ServerUtils.getContentLength(file) + Utils.EOL;
-            String contentType = "Content-Type: " + ServerUtils.getContentType(file) + Utils.EOL;
+            String type = ServerUtils.getContentType(file);
+            String contentType = "Content-Type: " + type + Utils.EOL;
+            String freshness = constructFreshnessHeaders(file, type);
             
             checkInterruption();
-            return date + server + lastModified + contentLength + contentType + connection;
+            return date + server + lastModified + contentLength + contentType + freshness + connection;
         } 
         checkInterruption();
         return date + server + connection; 
     }
+
+    /**
+     * Create the Cache-Control and Expires header lines for an object, if a cache rule matches it.
+     *
+     * @param file the requested file object
+     * @param contentType MIME type of the file (may be null if it couldn't be determined)
+     * @return Header lines ready to be included in the HTTP response (empty if no rule matches).
+     */
+    private String constructFreshnessHeaders(File file, String contentType) {
+        CachePolicy.Directive directive = cachePolicy.getDirective(objectPath, file, contentType);
+        if (directive == null) {
+            return "";
+        }
+
+        String cacheControl = "Cache-Control: " + directive.getCacheControl() + Utils.EOL;
+        if (directive.getMaxAgeSeconds() == CachePolicy.Directive.NO_MAX_AGE) {
+            return cacheControl;
+        }
+        String expires = "Expires: " + ServerUtils.getExpires(directive.getMaxAgeSeconds()) + Utils.EOL;
+        return cacheControl + expires;
+    }
 }